@@ -1,20 +1,25 @@
 import java.net.*;
+import java.nio.file.Path;
 import java.io.*;
 
 /**
  * Client.java
  * 
- * Connects to a centralized Server using TCP connection. 
+ * Connects to a centralized Server using TCP connection, or a
+ * Unix domain socket when running on the same host. 
  * 
  * Sends mathematical equations to the Server for it to 
  * solve and respond with the answer.
  */
 public class Client {
-    Socket s; // Socket object for client connection 
+    Transport s; // Connection (TCP or Unix domain) to the server
     BufferedReader in; // Input reader for terminal input
     DataOutputStream out; // Output stream to send to the server
     DataInputStream serverIn; // Input stream to receive from the server
     String user; // The user trying to connect to the server
+    TimerWheel timers; // Timer wheel driving the heartbeat
+
+    static final long HEARTBEAT_INTERVAL = Long.getLong("client.heartbeat", 15_000); // ms between keepalive frames
 
     /**
      * Client(String address, String name)
@@ -46,14 +51,8 @@ public class Client {
         // Attempt to establish a connection
         try {
             // Establish a socket connection to the server
-            s = new Socket(address, port); 
+            s = Transport.connect(address, port); 
             System.out.printf("Connected to %d\n", port);
-
-            // Set up the input and output streams
-            in = new BufferedReader(new InputStreamReader(System.in)); // Client-side input
-            out = new DataOutputStream(s.getOutputStream()); // Sending data to the server
-            serverIn = new DataInputStream(s.getInputStream()); // Reading server responses
-
         } catch(UnknownHostException u) {
             // Print error if host is unknown
             System.err.println("Failed to connect to host: " + u); 
@@ -64,8 +63,58 @@ public class Client {
             return;
         }
 
+        run(name);
+    }
+
+    /**
+     * Client(Path path, String name)
+     * 
+     * Constructor for the Client class.
+     * Initializes the client to send messages to a server on the
+     * same host through its Unix domain socket.
+     * 
+     * @param path Path of the server's Unix domain socket
+     * @param name The client name 
+     * @throws IOException Client failed to connect to the server
+     */
+    public Client(Path path, String name) throws IOException {
+        // Attempt to establish a connection
+        try {
+            s = Transport.connect(path);
+            System.out.printf("Connected to %s\n", path);
+        } catch(IOException i) {
+            // Print error if an IO issue occurs
+            System.err.println("Failed to connect to socket: " + i);
+            return;
+        }
+
+        run(name);
+    }
+
+    /**
+     * run(String name)
+     * 
+     * Run a session over the established connection: send the
+     * client name, exchange equations until the user enters #,
+     * then disconnect.
+     * 
+     * @param name The client name
+     * @throws IOException Communication with the server failed
+     */
+    void run(String name) throws IOException {
+        // Set up the input and output streams
+        in = new BufferedReader(new InputStreamReader(System.in)); // Client-side input
+        out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream())); // Sending data to the server
+        serverIn = new DataInputStream(new BufferedInputStream(s.getInputStream())); // Reading server responses
+
         // Send the client name to the server
-        out.writeUTF(name);
+        send(name);
+
+        // Keep the session alive while the user is typing
+        if(HEARTBEAT_INTERVAL > 0) {
+            timers = new TimerWheel("client-heartbeat", Math.min(1000, HEARTBEAT_INTERVAL));
+            scheduleHeartbeat();
+        }
 
         // Send the equation to the server
         writeToServer(); 
@@ -80,6 +129,10 @@ public class Client {
      * Write a message to the server and receive a 
      * response back.
      * 
+     * Equations are checked locally first; invalid ones are
+     * rejected without a round trip, and valid ones are sent
+     * already tokenized so the server does not parse them again.
+     * 
      * @throws IOException Message failed to be sent to the server
      */
     void writeToServer() throws IOException {
@@ -90,13 +143,20 @@ public class Client {
             System.out.print("Enter equation (# to close): ");
             line = in.readLine();
 
-            if(line.equals("#")) {
-                out.writeUTF(line);
+            if(line == null || line.equals(Transport.CLOSE)) {
+                send(Transport.CLOSE);
                 break;
             }
             
+            // Reject malformed input before it reaches the server
+            ExpressionParser.Parsed parsed = ExpressionParser.parse(line);
+            if(!parsed.isValid()) {
+                System.out.printf("Invalid expression: %s\n", parsed.getError());
+                continue;
+            }
+
             // Write the message to the server
-            out.writeUTF(line);
+            sendTokens(parsed.getTokens());
 
             // Wait for the server's response and print it
             String response = serverIn.readUTF();
@@ -110,6 +170,56 @@ public class Client {
         }  
     }
 
+    /**
+     * send(String frame)
+     * 
+     * Write a single frame to the server. Synchronized so that
+     * heartbeats never interleave with a request.
+     * 
+     * @param frame The frame to send
+     * @throws IOException Frame failed to be sent to the server
+     */
+    void send(String frame) throws IOException {
+        synchronized(out) {
+            out.writeUTF(frame);
+            out.flush();
+        }
+    }
+
+    /**
+     * sendTokens(ExpressionParser.Tokens tokens)
+     * 
+     * Send a pre-tokenized equation to the server: a TOKENS frame
+     * followed by the tokens in binary form
+     * 
+     * @param tokens The tokenized equation
+     * @throws IOException Equation failed to be sent to the server
+     */
+    void sendTokens(ExpressionParser.Tokens tokens) throws IOException {
+        synchronized(out) {
+            out.writeUTF(Transport.TOKENS);
+            ExpressionParser.writeTokens(out, tokens);
+            out.flush();
+        }
+    }
+
+    /**
+     * scheduleHeartbeat()
+     * 
+     * Send a heartbeat frame every HEARTBEAT_INTERVAL ms so the
+     * server does not reap the connection as idle
+     */
+    void scheduleHeartbeat() {
+        timers.schedule(() -> {
+            try {
+                send(Transport.HEARTBEAT);
+                scheduleHeartbeat();
+            } catch(IOException i) {
+                // The connection is gone; the main loop will notice on its next request
+            }
+        }, HEARTBEAT_INTERVAL);
+    }
+
     /**
      * close()
      * 
@@ -120,6 +230,7 @@ public class Client {
      */
     void close() throws IOException {
         System.out.println("CLOSE");
+        if(timers != null) timers.stop(); // Stop sending heartbeats
         in.close(); // Close the input stream for client-side
         out.close(); // Close the output stream for sending data to the server
         serverIn.close(); // Close the input stream for receiving data from the server
@@ -142,12 +253,17 @@ public class Client {
     }
 
     public static void main(String[] args) throws IOException {
-        if(args.length != 1) {
-            System.err.println("java Client <Name>");
+        if(args.length < 1 || args.length > 2) {
+            System.err.println("java Client <Name> [unix socket path]");
             System.exit(-1);
         }
 
         String name = args[0];
+        if(args.length == 2) {
+            new Client(Path.of(args[1]), name);
+            return;
+        }
+
         String address = getIPAddress();
         System.out.println(address);
         new Client(address, name);       
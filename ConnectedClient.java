@@ -1,4 +1,3 @@
-import java.net.*;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.io.*;
@@ -15,7 +14,7 @@ import java.io.*;
  * - Sending the result back to the client
  */
 public class ConnectedClient {
-    Socket clientSocket; // Socket to manage connection with the client
+    Transport clientSocket; // Connection (TCP or Unix domain) with the client
     DataInputStream in; // Input stream to read data from the client
     DataOutputStream out; // Output stream to send response to the client
     int id; // Unique identifier for the client
@@ -23,53 +22,81 @@ public class ConnectedClient {
     LocalDateTime endTime; // End time of client connection
     List<String> requestLogs; // Logs from the client to the server
     String name; // Client name
+    volatile long lastActivity; // System.nanoTime() of the last frame received
+    volatile boolean closed; // Set once the connection has been closed
 
     /**
-     * ConnectedClient(Socket socket, int id)
+     * ConnectedClient(Transport socket, int id, String name)
      * 
      * Initialize the connection with the client and set
      * up the input and output streams
      * 
      * @param socket The socket coonection for the client
      * @param id The unique client identifier
+     * @param name The client name
      */
-    public ConnectedClient(Socket socket, int id, String name) {
+    public ConnectedClient(Transport socket, int id, String name) {
         this.clientSocket = socket;
         this.id = id;
         this.name = name;
-        requestLogs = new ArrayList<>();
+        requestLogs = Collections.synchronizedList(new ArrayList<>());
         startTime = LocalDateTime.now();
+        lastActivity = System.nanoTime();
 
+        // Log the connection of the client
+        Tracer.info("Client [%s]-%d has connected", name, id);
+
+        // Set up the I/O streams
+        in = new DataInputStream(
+            new BufferedInputStream(clientSocket.getInputStream())
+        );
+        out = new DataOutputStream(clientSocket.getOutputStream());
+    }
+
+    /**
+     * read()
+     * 
+     * Reads the next mathematical expression from the client.
+     * Heartbeat frames only refresh the idle timer and are skipped.
+     * 
+     * @return The mathematical expression from the client, or null
+     *         if the connection was closed or failed
+     */
+    public String read() {
         try {
-            // Log the connection of the client
-            System.out.printf("Client [%s]-%d has connected\n", name, id);
-
-            // Set up the I/O streams
-            in = new DataInputStream(
-                new BufferedInputStream(clientSocket.getInputStream())
-            );
-            out = new DataOutputStream(clientSocket.getOutputStream());
+            while(true) {
+                String frame = in.readUTF();
+                lastActivity = System.nanoTime();
+                if(!frame.equals(Transport.HEARTBEAT))
+                    return frame;
+            }
+        } catch(EOFException e) {
+            return null;
         } catch(IOException i) {
-            // Print an error if there is a problem with the connection setup
-            System.err.println(i);
-            return;
+            // A read failing because the connection was reaped is expected
+            if(!closed)
+                Tracer.warn("Client [%s]-%d read failed: %s", name, id, i);
+            return null;
         }
     }
 
     /**
-     * read()
+     * readTokens()
      * 
-     * Reads a mathematical expression from the client, evaluates it,
-     * and sends the result back to the client.
+     * Reads a pre-tokenized expression that follows a Transport.TOKENS frame
+     * (see ExpressionParser.writeTokens)
      * 
-     * @return The mathematical expression from the client
+     * @return The tokens, or null if the connection was closed or failed
      */
-    public String read() {
+    public ExpressionParser.Tokens readTokens() {
         try {
-            return in.readUTF();
+            ExpressionParser.Tokens tokens = ExpressionParser.readTokens(in);
+            lastActivity = System.nanoTime();
+            return tokens;
         } catch(IOException i) {
-            System.err.println("ERROR: " + i);
-            return "";
+            if(!closed)
+                Tracer.warn("Client [%s]-%d: failed to read token frame: %s", name, id, i);
+            return null;
         }
     }
 
@@ -84,7 +111,7 @@ public class ConnectedClient {
         try {
             out.writeUTF(String.valueOf(result));
         } catch(IOException i) {
-            System.err.println(i);
+            Tracer.error("Client [%s]-%d: %s", name, id, i);
             return;
         }
     }
@@ -97,14 +124,17 @@ public class ConnectedClient {
      * Called when the client disconnects or the
      * server is done interacting with the client.
      */
-    public void close() {
+    public synchronized void close() {
+        if(closed) return;
+        closed = true;
+
         try {
-            System.out.printf("Client [%s]-%d has disconnected\n", name, id);
+            Tracer.info("Client [%s]-%d has disconnected", name, id);
             clientSocket.close();
             in.close();
             out.close();
         } catch(IOException i) {
-            System.err.println(i);
+            Tracer.error("Client [%s]-%d: %s", name, id, i);
             return;
         }
     }
@@ -127,6 +157,24 @@ public class ConnectedClient {
         return id;
     }
 
+    /**
+     * getIdleNanos()
+     * 
+     * @return Nanoseconds since the last frame was received from the client
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - lastActivity;
+    }
+
+    /**
+     * isClosed()
+     * 
+     * @return True if the connection has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
     /**
      * getStartTime()
      * 
@@ -174,9 +222,11 @@ public class ConnectedClient {
     /**
      * getRequestLog()
      * 
-     * @return A list of requests that the client sent to the server
+     * @return A snapshot of the requests that the client sent to the server
      */
     public List<String> getRequestLog() {
-        return requestLogs;
+        synchronized(requestLogs) {
+            return new ArrayList<>(requestLogs);
+        }
     }
 }
@@ -0,0 +1,126 @@
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.io.*;
+
+/**
+ * DatagramClient.java
+ *
+ * Stateless caller for the server's UDP endpoint. Each call to
+ * evaluate() is a single request packet and a single reply packet;
+ * no connection or handshake is involved.
+ *
+ * See DatagramEndpoint for the packet format.
+ */
+public class DatagramClient implements Closeable {
+    static final int TIMEOUT = Integer.getInteger("client.udpTimeout", 1_000); // ms to wait for a reply
+
+    DatagramSocket socket; // Socket connected to the server's UDP endpoint
+    long nextId; // Id of the next request
+    byte[] in; // Reused reply buffer
+    byte[] out; // Reused request buffer
+    DatagramPacket reply; // Reused reply packet
+
+    /**
+     * DatagramClient(String address, int port)
+     *
+     * @param address The IP address or host name of the server
+     * @param port The server's UDP port
+     * @throws IOException Failed to resolve or reach the server
+     */
+    public DatagramClient(String address, int port) throws IOException {
+        socket = new DatagramSocket();
+        socket.connect(new InetSocketAddress(address, port));
+
+        nextId = System.nanoTime();
+        in = new byte[DatagramEndpoint.replySize(DatagramEndpoint.MAX_BATCH)];
+        out = new byte[DatagramEndpoint.MAX_PACKET];
+        reply = new DatagramPacket(in, in.length);
+    }
+
+    /**
+     * evaluate(String... expressions)
+     *
+     * Evaluate up to MAX_BATCH expressions in a single round trip
+     *
+     * @param expressions The infix expressions
+     * @return The results, NaN for expressions the server could not parse
+     * @throws SocketTimeoutException No reply arrived within client.udpTimeout ms
+     * @throws IOException The request could not be sent or is too large
+     */
+    public double[] evaluate(String... expressions) throws IOException {
+        if(expressions.length < 1 || expressions.length > DatagramEndpoint.MAX_BATCH)
+            throw new IllegalArgumentException("Between 1 and " + DatagramEndpoint.MAX_BATCH + " expressions per request");
+
+        long id = nextId++;
+        ByteBuffer req = ByteBuffer.wrap(out);
+        req.putLong(id);
+        req.putShort((short) expressions.length);
+        for(String eq : expressions) {
+            byte[] bytes = eq.getBytes(StandardCharsets.UTF_8);
+            if(bytes.length == 0)
+                throw new IllegalArgumentException("Empty expression");
+            if(bytes.length + 2 > req.remaining())
+                throw new IOException("Request exceeds " + DatagramEndpoint.MAX_PACKET + " bytes");
+            req.putShort((short) bytes.length);
+            req.put(bytes);
+        }
+
+        // The server only answers requests at least as large as the
+        // reply, so pad short requests with zeros
+        int length = Math.max(req.position(), DatagramEndpoint.replySize(expressions.length));
+        Arrays.fill(out, req.position(), length, (byte) 0);
+        socket.send(new DatagramPacket(out, length));
+
+        // Skip late replies to earlier requests that timed out, without
+        // letting them push the wait past client.udpTimeout in total
+        long deadline = System.nanoTime() + TIMEOUT * 1_000_000L;
+        while(true) {
+            long remaining = (deadline - System.nanoTime()) / 1_000_000;
+            if(remaining <= 0)
+                throw new SocketTimeoutException("No reply within " + TIMEOUT + " ms");
+            socket.setSoTimeout((int) remaining);
+
+            reply.setLength(in.length);
+            socket.receive(reply);
+
+            ByteBuffer rep = ByteBuffer.wrap(in, 0, reply.getLength());
+            if(rep.remaining() < 10 || rep.getLong() != id) continue;
+
+            int count = rep.getShort();
+            if(count != expressions.length || rep.remaining() < count * 8) continue;
+
+            double[] results = new double[count];
+            for(int i = 0; i < count; i++)
+                results[i] = rep.getDouble();
+            return results;
+        }
+    }
+
+    /**
+     * close()
+     *
+     * Release the local UDP socket
+     */
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 3) {
+            System.err.println("java DatagramClient <Address> <Port> <Expression>...");
+            System.exit(-1);
+        }
+
+        String[] expressions = new String[args.length - 2];
+        System.arraycopy(args, 2, expressions, 0, expressions.length);
+
+        try(DatagramClient client = new DatagramClient(args[0], Integer.parseInt(args[1]))) {
+            double[] results = client.evaluate(expressions);
+            for(int i = 0; i < results.length; i++)
+                System.out.printf("%s = %s\n", expressions[i], Double.isNaN(results[i]) ? "Error parsing expression" : results[i]);
+        }
+    }
+}
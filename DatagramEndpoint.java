@@ -0,0 +1,189 @@
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.io.*;
+
+/**
+ * DatagramEndpoint.java
+ *
+ * Connectionless UDP endpoint for one-shot evaluations. There is no
+ * handshake, session or ConnectedClient: each request packet carries
+ * everything needed to answer it.
+ *
+ * Request packet (big-endian):
+ *   long   request id
+ *   short  number of expressions (1 - MAX_BATCH)
+ *   repeated: short length (at least 1), UTF-8 bytes of the expression
+ *   zero padding, so the packet is at least as large as its reply
+ *
+ * Reply packet (big-endian):
+ *   long   request id (copied from the request)
+ *   short  number of results
+ *   repeated: double result (NaN if the expression is invalid)
+ *
+ * Every worker thread owns its own Infix and packet buffers, which are
+ * reused for every request. Requests that are malformed, too large or
+ * carry too many expressions are dropped.
+ *
+ * The endpoint is unauthenticated, so a reply is never larger than
+ * the request that caused it; otherwise a spoofed source address
+ * would turn it into a traffic amplifier. Requests shorter than
+ * their reply (10 + 8 bytes per expression) are dropped.
+ */
+public class DatagramEndpoint implements Closeable {
+    public static final int MAX_PACKET = 1400; // Largest packet accepted, keeps replies within one MTU
+    public static final int MAX_BATCH = 64; // Most expressions evaluated per packet
+
+    DatagramSocket socket; // Socket shared by all workers
+    int workers; // Number of worker threads to start
+    volatile boolean running;
+
+    /**
+     * DatagramEndpoint(int port, int workers)
+     *
+     * Bind the UDP port. No packets are served until start() is called.
+     *
+     * @param port The UDP port to listen on
+     * @param workers Number of threads receiving and evaluating packets
+     * @throws SocketException Failed to bind the port
+     */
+    public DatagramEndpoint(int port, int workers) throws SocketException {
+        socket = new DatagramSocket(port);
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * start()
+     *
+     * Start the worker threads
+     */
+    public void start() {
+        running = true;
+
+        for(int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::receiveLoop, "udp-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * close()
+     *
+     * Stop the workers and release the port
+     */
+    @Override
+    public void close() {
+        running = false;
+        socket.close();
+    }
+
+    /**
+     * receiveLoop()
+     *
+     * Worker loop. Receives a packet, evaluates its expressions and
+     * sends the reply, reusing the same buffers every time.
+     */
+    void receiveLoop() {
+        Infix calculator = new Infix();
+        byte[] in = new byte[MAX_PACKET + 1]; // One spare byte to detect oversized packets
+        byte[] out = new byte[replySize(MAX_BATCH)];
+        DatagramPacket request = new DatagramPacket(in, in.length);
+        DatagramPacket reply = new DatagramPacket(out, out.length);
+        ByteBuffer reqBuf = ByteBuffer.wrap(in);
+        ByteBuffer repBuf = ByteBuffer.wrap(out);
+
+        while(running) {
+            try {
+                request.setLength(in.length);
+                socket.receive(request);
+            } catch(IOException i) {
+                if(running)
+                    Tracer.warn("UDP receive failed: %s", i);
+                continue;
+            }
+
+            // receive() silently truncates to the buffer, so a packet
+            // that fills the spare byte was too large
+            if(request.getLength() > MAX_PACKET) {
+                Tracer.debug("Dropped oversized UDP request from %s", request.getSocketAddress());
+                continue;
+            }
+
+            reqBuf.clear().limit(request.getLength());
+            repBuf.clear();
+            if(!handle(calculator, reqBuf, repBuf)) {
+                Tracer.debug("Dropped malformed UDP request from %s", request.getSocketAddress());
+                continue;
+            }
+
+            try {
+                reply.setData(out, 0, repBuf.position());
+                reply.setSocketAddress(request.getSocketAddress());
+                socket.send(reply);
+            } catch(IOException i) {
+                Tracer.warn("UDP reply to %s failed: %s", request.getSocketAddress(), i);
+            }
+        }
+    }
+
+    /**
+     * replySize(int count)
+     *
+     * @param count Number of expressions in a request
+     * @return Size in bytes of the reply to that request
+     */
+    public static int replySize(int count) {
+        return 8 + 2 + count * 8;
+    }
+
+    /**
+     * handle(Infix calculator, ByteBuffer req, ByteBuffer rep)
+     *
+     * Decode a request, evaluate it and encode the reply
+     *
+     * @param calculator The worker's calculator
+     * @param req The request packet
+     * @param rep Buffer to write the reply into
+     * @return False if the request is malformed and should be dropped
+     */
+    static boolean handle(Infix calculator, ByteBuffer req, ByteBuffer rep) {
+        try {
+            long id = req.getLong();
+            int count = req.getShort();
+            if(count < 1 || count > MAX_BATCH) return false;
+            if(replySize(count) > req.limit()) return false;
+
+            rep.putLong(id);
+            rep.putShort((short) count);
+
+            for(int i = 0; i < count; i++) {
+                int len = req.getShort();
+                if(len < 1 || len > req.remaining()) return false;
+
+                String eq = new String(req.array(), req.position(), len, StandardCharsets.UTF_8);
+                req.position(req.position() + len);
+
+                // Invalid expressions are only traced at DEBUG, so
+                // unauthenticated senders cannot flood the log
+                double value = Double.NaN;
+                ExpressionParser.Parsed parsed = ExpressionParser.parse(eq);
+                if(!parsed.isValid()) {
+                    Tracer.debug("Invalid UDP expression: %s", parsed.getError());
+                } else {
+                    try {
+                        value = calculator.evaluateTokens(parsed.getTokens());
+                    } catch(RuntimeException e) {
+                        Tracer.debug("UDP expression failed: %s", e);
+                    }
+                }
+                rep.putDouble(value);
+            }
+
+            return true;
+        } catch(BufferUnderflowException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * ExpressionParser.java
+ *
+ * Tokenizer and validator for infix expressions, shared by Client
+ * and Server.
+ *
+ * Text is tokenized into strings and then compiled once into Tokens,
+ * a typed form holding each operand as a double and each operator or
+ * parenthesis as a char. The client uses it to reject malformed
+ * expressions before they are sent and to ship the typed tokens in a
+ * compact binary form. The server decodes that form straight into
+ * Tokens, so it neither re-tokenizes nor re-parses numbers, and it
+ * validates the grammar of every token sequence before evaluating it.
+ */
+public class ExpressionParser {
+    static final int MAX_TOKENS = 4096; // Most tokens in an expression, text or binary
+    public static final char OPERAND = 'n'; // Kind of an operand token, also its binary tag
+
+    /**
+     * Tokens
+     *
+     * Typed, tokenized expression. kinds[i] is OPERAND for a number,
+     * whose value is values[i], or the operator or parenthesis character.
+     */
+    public static class Tokens {
+        final char[] kinds; // OPERAND, an operator, '(' or ')'
+        final double[] values; // Operand values, indexed like kinds
+        final int size; // Number of tokens
+
+        Tokens(char[] kinds, double[] values, int size) {
+            this.kinds = kinds;
+            this.values = values;
+            this.size = size;
+        }
+
+        /**
+         * toString()
+         *
+         * @return The expression written out, for logging
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < size; i++) {
+                if(kinds[i] == OPERAND)
+                    sb.append(values[i]);
+                else
+                    sb.append(kinds[i]);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Parsed
+     *
+     * Result of parsing an expression: its tokens, and an error
+     * message if it is not a valid expression
+     */
+    public static class Parsed {
+        final Tokens tokens; // Tokenized form of the expression, or null
+        final String error; // Why the expression is invalid, or null
+
+        Parsed(Tokens tokens, String error) {
+            this.tokens = tokens;
+            this.error = error;
+        }
+
+        /**
+         * isValid()
+         *
+         * @return True if the expression can be evaluated
+         */
+        public boolean isValid() {
+            return error == null;
+        }
+
+        /**
+         * getTokens()
+         *
+         * @return The tokenized form of the expression, or null if it
+         *         could not be tokenized
+         */
+        public Tokens getTokens() {
+            return tokens;
+        }
+
+        /**
+         * getError()
+         *
+         * @return Why the expression is invalid, or null if it is valid
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    private ExpressionParser() {}
+
+    /**
+     * parse(String expr)
+     *
+     * Normalize, tokenize and validate an infix expression
+     *
+     * @param expr Infix expression
+     * @return The tokens, plus an error if the expression is invalid
+     */
+    public static Parsed parse(String expr) {
+        // Format the expression to be "mathematical"
+        expr =  expr
+                .replaceAll("\\s+", "")
+                .replace("[", "(")
+                .replace("]", ")")
+                .replace("+-", "-")
+                .replace("-+", "-")
+                .replace("--", "+")
+                .replace("**", "^")
+                .replace("//", "/")
+                .replace(")(", ")*(")
+                .trim();
+
+        if(expr.startsWith("-(")) {
+            expr = "0" + expr;
+        }
+
+        // Build the tokens from the expression
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while(i < expr.length()) {
+            char curr = expr.charAt(i);
+
+            if(isOperator(curr)) {
+                tokens.add(String.valueOf(curr));
+            } else if(curr == '(') {
+                if(!tokens.isEmpty() && isOperand(tokens.get(tokens.size() - 1))) {
+                    tokens.add("*");
+                }
+                tokens.add(String.valueOf(curr));
+            } else if(curr == ')') {
+                tokens.add(String.valueOf(curr));
+            } else {
+                StringBuilder currOperand = new StringBuilder();
+                currOperand.append(curr);
+
+                while(i + 1 < expr.length() && !isOperator(expr.charAt(i + 1)) && expr.charAt(i + 1) != '(' && expr.charAt(i + 1) != ')') {
+                    currOperand.append(expr.charAt(i + 1));
+                    i++;
+                }
+
+                // Handle error when a non-digit is detected
+                double val = 0;
+                try {
+                    val = Double.parseDouble(currOperand.toString());
+                } catch (NumberFormatException nfe) {
+                    return new Parsed(null, "Non-numerical value detected!");
+                }
+
+                // Handle negative numbers
+                if(tokens.size() == 1 && tokens.get(0).equals("-")) {
+                    tokens.set(0, "-"+val);
+                } else if(tokens.size() >= 2 && isOperatorOrOpenParen(tokens.get(tokens.size() - 2)) && tokens.get(tokens.size() - 1).equals("-")) {
+                    tokens.set(tokens.size() - 1, "-"+val);
+                } else {
+                    // Handles expression matching (A)B
+                    if(!tokens.isEmpty() && tokens.get(tokens.size() - 1).equals(")")) {
+                        tokens.add("*");
+                    }
+                    tokens.add(""+val);
+                }
+            }
+
+            i++;
+        }
+
+        Tokens compiled = compile(tokens);
+        if(compiled == null)
+            return new Parsed(null, "Non-numerical value detected!");
+        return new Parsed(compiled, validate(compiled));
+    }
+
+    /**
+     * compile(List<String> tokens)
+     *
+     * Convert string tokens from the text tokenizer into typed Tokens
+     *
+     * @param tokens String tokens
+     * @return The typed tokens, or null if a token is neither a number,
+     *         an operator nor a parenthesis
+     */
+    static Tokens compile(List<String> tokens) {
+        int size = tokens.size();
+        char[] kinds = new char[size];
+        double[] values = new double[size];
+
+        for(int i = 0; i < size; i++) {
+            String token = tokens.get(i);
+            if(isOperand(token)) {
+                kinds[i] = OPERAND;
+                values[i] = Double.parseDouble(token);
+            } else if(token.length() == 1 && (isOperator(token.charAt(0)) || token.equals("(") || token.equals(")"))) {
+                kinds[i] = token.charAt(0);
+            } else {
+                return null;
+            }
+        }
+
+        return new Tokens(kinds, values, size);
+    }
+
+    /**
+     * validate(Tokens tokens)
+     *
+     * Check that tokens form a well-formed expression. Besides the
+     * operand/operator counts, the grammar is checked: operands and
+     * operators alternate, a sign is only part of an operand (so it
+     * can only appear at the start, after '(' or after an operator),
+     * parentheses never close more than they opened, and the
+     * expression does not end on an operator or '('. Expressions of
+     * more than MAX_TOKENS tokens are rejected, so the client never
+     * sends a token frame the server would refuse.
+     *
+     * @param tokens Tokenized expression
+     * @return Why the expression is invalid, or null if it is valid
+     */
+    public static String validate(Tokens tokens) {
+        if(tokens.size > MAX_TOKENS) {
+            return "Expression has more than " + MAX_TOKENS + " tokens!";
+        }
+
+        // Keep track of the no. of operators, operands, (, and )
+        int numOperators = 0, numOperands = 0, numOpenParen = 0, numClosedParen = 0;
+
+        for(int i = 0; i < tokens.size; i++) {
+            char kind = tokens.kinds[i];
+            if(kind == OPERAND) {
+                if(!Double.isFinite(tokens.values[i]))
+                    return "Non-numerical value detected!";
+                numOperands++;
+            } else if(kind == '(') {
+                numOpenParen++;
+            } else if(kind == ')') {
+                numClosedParen++;
+            } else if(isOperator(kind)) {
+                numOperators++;
+            } else {
+                return "Non-numerical value detected!";
+            }
+        }
+
+        if(numOperands == 0) {
+            return "No operand detected!";
+        }
+
+        if(numOperators == 0) {
+            return "No valid arithmetic operator detected!";
+        }
+
+        if(numOperators >= numOperands) {
+            return "Operator count >= Operand count!";
+        }
+
+        if(numOpenParen != numClosedParen) {
+            return "Unbalanced expression!";
+        }
+
+        // Walk the grammar: expr := term (operator term)*, term := operand | ( expr )
+        boolean expectOperand = true;
+        int depth = 0;
+        for(int i = 0; i < tokens.size; i++) {
+            char kind = tokens.kinds[i];
+            if(expectOperand) {
+                if(kind == OPERAND) {
+                    expectOperand = false;
+                } else if(kind == '(') {
+                    depth++;
+                } else {
+                    return "Misplaced operator or parenthesis!";
+                }
+            } else {
+                if(kind == ')') {
+                    if(--depth < 0)
+                        return "Unbalanced expression!";
+                } else if(isOperator(kind)) {
+                    expectOperand = true;
+                } else {
+                    return "Misplaced operator or parenthesis!";
+                }
+            }
+        }
+
+        if(expectOperand) {
+            return "Expression ends with an operator or '('!";
+        }
+
+        return null;
+    }
+
+    /**
+     * writeTokens(DataOutput out, Tokens tokens)
+     *
+     * Write tokens in compact binary form: a short count, then for
+     * each token either OPERAND followed by its double value, or the
+     * operator/parenthesis character as a single byte
+     *
+     * @param out Stream to write to
+     * @param tokens Tokenized expression
+     * @throws IOException Failed to write the tokens, or there are
+     *                     more than MAX_TOKENS of them
+     */
+    public static void writeTokens(DataOutput out, Tokens tokens) throws IOException {
+        // The count is a short; never let it wrap and desync the stream
+        if(tokens.size > MAX_TOKENS)
+            throw new IOException("Too many tokens: " + tokens.size);
+
+        out.writeShort(tokens.size);
+        for(int i = 0; i < tokens.size; i++) {
+            out.writeByte(tokens.kinds[i]);
+            if(tokens.kinds[i] == OPERAND)
+                out.writeDouble(tokens.values[i]);
+        }
+    }
+
+    /**
+     * readTokens(DataInput in)
+     *
+     * Read tokens written by writeTokens. The result still has to be
+     * checked with validate() before it is evaluated.
+     *
+     * A frame of more than MAX_TOKENS tokens is still read in full
+     * (the short count bounds it to 65535), so the stream stays in
+     * sync and validate() rejects it like any other invalid expression.
+     *
+     * @param in Stream to read from
+     * @return The tokenized expression
+     * @throws IOException Failed to read the tokens
+     */
+    public static Tokens readTokens(DataInput in) throws IOException {
+        int size = in.readUnsignedShort();
+        char[] kinds = new char[size];
+        double[] values = new double[size];
+        for(int i = 0; i < size; i++) {
+            kinds[i] = (char) (in.readByte() & 0xff);
+            if(kinds[i] == OPERAND)
+                values[i] = in.readDouble();
+        }
+        return new Tokens(kinds, values, size);
+    }
+
+    /**
+     * isOperator(char c)
+     *
+     * @param c Operator character
+     * @return True if c is a mathematical operator; otherwise, False
+     */
+    public static boolean isOperator(char c) {
+        return c == '*' || c == '/' || c == '+' || c == '-'  || c == '%' || c == '^';
+    }
+
+    /**
+     * isOperatorOrOpenParen(String token)
+     *
+     * @param token A string token
+     * @return True if token is a single operator or '(' (and not a
+     *         negative operand such as "-1.0")
+     */
+    static boolean isOperatorOrOpenParen(String token) {
+        return token.length() == 1 && (isOperator(token.charAt(0)) || token.charAt(0) == '(');
+    }
+
+    /**
+     * isOperand(String op)
+     *
+     * Accepts the exponent form as well, which String.valueOf(double)
+     * produces for large operands in the text tokenizer.
+     *
+     * @param op Operand
+     * @return True if op is a valid operand
+     */
+    public static boolean isOperand(String op) {
+        return op.matches("^[+-]?([0-9]+([.][0-9]+)?|[.][0-9]+)([eE][+-]?[0-9]+)?$");
+    }
+}
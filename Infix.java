@@ -6,11 +6,12 @@ import java.util.*;
  * Java class to perform infix evaluation using
  * an algorithm similar to the Shunting Yard
  * algorithm.
+ * 
+ * Tokenizing and validation are done by ExpressionParser.
  */
 public class Infix {
     Stack<Double> operand; // Stack of operands
     Stack<Character> operator; // Stack of operators
-    int bitCheck; // Checks if the equation is parsed correctly
 
     /**
      * Infix()
@@ -18,7 +19,6 @@ public class Infix {
      * Constructor for the Infix class
      */
     public Infix() {
-        bitCheck = 1;
         operand = new Stack<Double>();
         operator = new Stack<Character>();
     }
@@ -27,30 +27,67 @@ public class Infix {
      * evaluate(String expr)
      * 
      * @param expr The infix expression
-     * @return The evaluated result of the expression
+     * @return The evaluated result of the expression, or NaN if
+     *         the expression is invalid
      */
     double evaluate(String expr) {
-        List<String> tokens = parseExpression(expr);
+        ExpressionParser.Parsed parsed = ExpressionParser.parse(expr);
+        if(!parsed.isValid()) {
+            Tracer.warn("%s", parsed.getError());
+            return Double.NaN;
+        }
+
+        return evaluateTokens(parsed.getTokens());
+    }
 
-        if(bitCheck == 0) {
+    /**
+     * evaluate(ExpressionParser.Tokens tokens)
+     * 
+     * Evaluate an expression that was already tokenized, e.g. by
+     * the client. The tokens are validated but not re-tokenized.
+     * 
+     * @param tokens The tokenized infix expression
+     * @return The evaluated result of the expression, or NaN if
+     *         the tokens are not a valid expression
+     */
+    double evaluate(ExpressionParser.Tokens tokens) {
+        String error = ExpressionParser.validate(tokens);
+        if(error != null) {
+            Tracer.warn("%s", error);
             return Double.NaN;
         }
 
-        for(String token : tokens) {
-            if(isOperand(token)) {
-                operand.push(Double.parseDouble(token));
-            } else if(token.equals("(")) {
+        return evaluateTokens(tokens);
+    }
+
+    /**
+     * evaluateTokens(ExpressionParser.Tokens tokens)
+     * 
+     * @param tokens A validated, tokenized infix expression
+     * @return The evaluated result of the expression
+     */
+    double evaluateTokens(ExpressionParser.Tokens tokens) {
+        // Start from a clean state; a previous expression may have
+        // thrown part way through
+        operand.clear();
+        operator.clear();
+
+        for(int i = 0; i < tokens.size; i++) {
+            char token = tokens.kinds[i];
+            if(token == ExpressionParser.OPERAND) {
+                operand.push(tokens.values[i]);
+            } else if(token == '(') {
                 operator.push('(');
-            } else if(token.equals(")")) {
+            } else if(token == ')') {
                 while(!operator.isEmpty() && operator.peek() != '(') {
                     operate();
                 }
                 operator.pop();
-            } else if(isOperator(token.charAt(0))) {
-                while(!operator.isEmpty() && precedence(token.charAt(0)) <= precedence(operator.peek())) {
+            } else if(isOperator(token)) {
+                while(!operator.isEmpty() && precedence(token) <= precedence(operator.peek())) {
                     operate();
                 }
-                operator.push(token.charAt(0));
+                operator.push(token);
             }
         }
 
@@ -68,17 +105,7 @@ public class Infix {
      * @return True if c is a mathematical operator; otherwise, False
      */
     boolean isOperator(char c) {
-        return c == '*' || c == '/' || c == '+' || c == '-'  || c == '%' || c == '^';
-    }
-
-    /**
-     * isOperand(String op)
-     * 
-     * @param op Operand
-     * @return True if op is a valid operand
-     */
-    boolean isOperand(String op) {
-        return op.matches("^[+-]?([0-9]+([.][0-9]+)?|[.][0-9]+)$");
+        return ExpressionParser.isOperator(c);
     }
 
     /**
@@ -141,113 +168,4 @@ public class Infix {
         }
         operand.push(res);
     }
-
-    /**
-     * parseExpression(String expr)
-     * 
-     * @param expr Infix expression
-     * @return Tokenized form of the expression
-     */
-    List<String> parseExpression(String expr) {
-        // Format the expression to be "mathematical"
-        expr =  expr
-                .replaceAll("\\s+", "")
-                .replace("[", "(")
-                .replace("]", ")")
-                .replace("+-", "-")
-                .replace("-+", "-")
-                .replace("--", "+")
-                .replace("**", "^")
-                .replace("//", "/")
-                .replace(")(", ")*(")
-                .trim();
-
-        if(expr.startsWith("-(")) {
-            expr = "0" + expr;
-        }
-
-        // Keep track of the no. of operators, operands, (, and )
-        int numOperators = 0, numOperands = 0, numOpenParen = 0, numClosedParen = 0;
-        
-        // Build the tokens from the expression
-        List<String> tokens = new ArrayList<>();
-        int i = 0;
-        while(i < expr.length()) {
-            char curr = expr.charAt(i);
-            
-            if(isOperator(curr)) {
-                numOperators++;
-                tokens.add(String.valueOf(curr));
-            } else if(curr == '(') {
-                numOpenParen++;
-                if(!tokens.isEmpty() && isOperand(tokens.get(tokens.size() - 1))) {
-                    numOperators++;
-                    tokens.add("*");
-                }
-                tokens.add(String.valueOf(curr));
-            } else if(curr == ')') {
-                numClosedParen++;
-                tokens.add(String.valueOf(curr));
-            } else {
-                numOperands++;
-                StringBuilder currOperand = new StringBuilder();
-                currOperand.append(curr);
-
-                while(i + 1 < expr.length() && !isOperator(expr.charAt(i + 1)) && expr.charAt(i + 1) != '(' && expr.charAt(i + 1) != ')') {
-                    currOperand.append(expr.charAt(i + 1));
-                    i++;
-                }
-
-                // Handle error when a non-digit is detected
-                double val = 0;
-                try {
-                    val = Double.parseDouble(currOperand.toString());
-                } catch (NumberFormatException nfe) {
-                    System.err.println("Non-numerical value detected!");
-                    numOperands = 0;
-                    break;
-                }
-
-                // Handle negative numbers
-                if(tokens.size() == 1 && tokens.get(0).equals("-")) {
-                    numOperators--;
-                    tokens.set(0, "-"+val);
-                } else if(tokens.size() >= 2 && (isOperator(tokens.get(tokens.size() - 2).charAt(0)) || tokens.get(tokens.size() - 2).equals("(")) && tokens.get(tokens.size() - 1).equals("-")) {
-                    numOperators--;
-                    tokens.set(tokens.size() - 1, "-"+val);
-                } else {
-                    // Handles expression matching (A)B
-                    if(!tokens.isEmpty() && tokens.get(tokens.size() - 1).equals(")")) {
-                        tokens.add("*");
-                        numOperators++;
-                    }
-                    tokens.add(""+val);
-                }
-            }
-
-            i++;
-        }
-
-        if(numOperands == 0) {
-            System.err.println("No operand detected!");
-            bitCheck = 0;
-        } 
-
-        if(numOperators == 0) {
-            System.err.println("No valid arithmetic operator detected!");
-            bitCheck = 0;
-        } 
-
-        if(numOperators >= numOperands) {
-            System.err.println("Operator count >= Operand count!");
-            bitCheck = 0;
-        }
-        
-        if(numOpenParen != numClosedParen) {
-            System.err.println("Unbalanced expression!");
-            bitCheck = 0;
-        }
-
-        return tokens;
-    }
 }
@@ -3,6 +3,12 @@ import java.util.*;
 import java.io.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * Server.java
@@ -16,13 +22,26 @@ import java.time.format.DateTimeFormatter;
 public class Server {
     Socket s; // Socket for handling communication with a client
     ServerSocket serverSocket; // ServerSocket to listen for incoming client connections
+    ServerSocketChannel udsChannel; // Unix domain listener for co-located clients, or null
+    DatagramEndpoint udp; // Connectionless endpoint for one-shot evaluations, or null
     DataInputStream in; // Input stream for receiving data from the client
     DataOutputStream out; // Output stream for sending data to the client
-    int index; // Keeps track of the client connection index
+    AtomicInteger index; // Keeps track of the client connection index
 
     //public static final int PORT = 5000; // Port number to connect to
-    Infix calculator;
-    List<ConnectedClient> clients; // List of connected clients
+    static final long IDLE_TIMEOUT = Long.getLong("server.idleTimeout", 60_000); // ms of silence before a client is reaped
+    static final long TIMER_TICK = Long.getLong("server.timerTick", 100); // Resolution of the idle timer in ms
+    static final long HANDSHAKE_TIMEOUT = Long.getLong("server.handshakeTimeout", 5_000); // ms allowed to send the client name
+    static final int ACCEPTORS = Integer.getInteger("server.acceptors", 1); // Number of acceptor threads
+    static final int BACKLOG = Integer.getInteger("server.backlog", 1024); // Pending connection queue length per socket
+    static final long ACCEPT_BACKOFF = 100; // ms to pause after accept() fails, e.g. out of file descriptors
+    static final String UDS_PATH = System.getProperty("server.uds"); // Unix domain socket path, or null for TCP only
+    static final int UDP_PORT = Integer.getInteger("server.udpPort", -1); // UDP port for one-shot evaluations, or -1 for none
+    static final int UDP_WORKERS = Integer.getInteger("server.udpWorkers", 1); // Threads serving the UDP endpoint
+
+    Set<ConnectedClient> clients; // Currently connected clients
+    File logFile; // Log of every finished session since the server started
+    TimerWheel timers; // Shared timer wheel for handshake deadlines and idle checks
 
     /**
      * Server(int port)
@@ -39,80 +58,373 @@ public class Server {
      * Server(int port)
      * 
      * Constructor for the centralized Server class.
-     * Initializes the server to listen for incoming client connections.
+     * Initializes the server to listen for incoming client connections,
+     * plus a Unix domain socket if the server.uds property is set.
      * 
      * @param port The port number the server will listen on
      */
     public Server(int port) {
-        clients = new ArrayList<ConnectedClient>();
-        index = 0; // Initialize the current client connection index
-        calculator = new Infix();
+        this(port, UDS_PATH == null ? null : Path.of(UDS_PATH));
+    }
+
+    /**
+     * Server(int port, Path udsPath)
+     * 
+     * Constructor for the centralized Server class.
+     * Initializes the server to listen for incoming client connections
+     * over TCP and, optionally, a Unix domain socket.
+     * 
+     * Starts ACCEPTORS acceptor threads (plus one for the Unix domain
+     * socket) and returns; the server keeps running on those threads.
+     * 
+     * @param port The port number the server will listen on
+     * @param udsPath Path of the Unix domain socket, or null for TCP only
+     */
+    public Server(int port, Path udsPath) {
+        clients = ConcurrentHashMap.newKeySet();
+        logFile = new File(System.getProperty("user.dir") + File.separator + "Log", String.format(
+            "log_%s.txt",
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"))
+        ));
+        index = new AtomicInteger(); // Initialize the current client connection index
+        timers = new TimerWheel("server-timers", TIMER_TICK);
 
-        // Run the server and wait for a client to connect
+        // Bind every listener before starting any thread, so a failure
+        // never leaves the server half started
+        List<Closeable> opened = new ArrayList<>();
+        List<ServerSocket> listeners;
         try {
             // Set up the server on the specified port
-            serverSocket = new ServerSocket(port);
-            System.out.printf("Server started on port %d\n", port);
-            
-            // Indicate that the server is waiting for a client connection
-            System.out.println("Waiting for a client...");
+            listeners = openListeners(port, Math.max(1, ACCEPTORS), opened);
 
-            // Handle incoming client connections
-            while(true) 
-                initConnection();
+            // Co-located clients can skip the TCP stack entirely
+            if(udsPath != null) {
+                udsChannel = openUnixListener(udsPath);
+                opened.add(udsChannel);
+            }
 
-            
+            // Stateless callers can evaluate without a session
+            if(UDP_PORT > 0) {
+                udp = new DatagramEndpoint(UDP_PORT, UDP_WORKERS);
+                opened.add(udp);
+            }
         } catch(IOException i) {
-            System.err.println("Failed to start server: " + i);
+            Tracer.error("Failed to start server: %s", i);
+            closeAll(opened);
+            timers.stop();
             return;
         }
+
+        serverSocket = listeners.get(0);
+        Tracer.info("Server started on port %d (%d acceptor(s), %d socket(s))", port, Math.max(1, ACCEPTORS), listeners.size());
+        if(udsChannel != null)
+            Tracer.info("Server listening on unix socket %s", udsPath);
+        if(udp != null)
+            Tracer.info("Server listening on UDP port %d", UDP_PORT);
+
+        // Indicate that the server is waiting for a client connection
+        Tracer.info("Waiting for a client...");
+
+        // Handle incoming client connections
+        for(int i = 0; i < Math.max(1, ACCEPTORS); i++) {
+            ServerSocket listener = listeners.get(i % listeners.size());
+            new Thread(() -> acceptLoop(listener), "acceptor-" + i).start();
+        }
+        if(udsChannel != null)
+            new Thread(this::acceptUnixLoop, "acceptor-uds").start();
+        if(udp != null)
+            udp.start();
+    }
+
+    /**
+     * closeAll(List<Closeable> listeners)
+     * 
+     * Close listeners that were opened before a later one failed
+     * 
+     * @param listeners The listeners to close
+     */
+    void closeAll(List<Closeable> listeners) {
+        for(Closeable listener : listeners) {
+            try {
+                listener.close();
+            } catch(IOException i) {
+                // Nothing more can be done; the server is not starting
+            }
+        }
+    }
+
+    /**
+     * openListeners(int port, int acceptors)
+     * 
+     * Open the listening sockets for the acceptor threads. With more
+     * than one acceptor and SO_REUSEPORT support, every acceptor gets
+     * its own socket bound to the same port so the kernel spreads new
+     * connections across them; otherwise they share a single socket.
+     * 
+     * @param port The port number to listen on
+     * @param acceptors Number of acceptor threads
+     * @param opened Every socket created is added here, so the caller
+     *               can close them if a later step fails
+     * @return The listening sockets
+     * @throws IOException Failed to bind the port
+     */
+    List<ServerSocket> openListeners(int port, int acceptors, List<Closeable> opened) throws IOException {
+        List<ServerSocket> listeners = new ArrayList<>();
+
+        ServerSocket first = new ServerSocket();
+        opened.add(first);
+        boolean reusePort = acceptors > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if(reusePort)
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        first.bind(new InetSocketAddress(port), BACKLOG);
+        listeners.add(first);
+
+        for(int i = 1; reusePort && i < acceptors; i++) {
+            ServerSocket listener = new ServerSocket();
+            opened.add(listener);
+            listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            listener.bind(new InetSocketAddress(port), BACKLOG);
+            listeners.add(listener);
+        }
+
+        return listeners;
+    }
+
+    /**
+     * openUnixListener(Path path)
+     * 
+     * Bind a Unix domain listening socket, replacing a stale socket
+     * file left behind by a previous run. A path that is not a
+     * socket, or a socket another server is still accepting on, is
+     * left alone.
+     * 
+     * @param path Path of the socket file
+     * @return The listening channel
+     * @throws IOException Failed to bind the socket, or the path is in use
+     */
+    ServerSocketChannel openUnixListener(Path path) throws IOException {
+        if(Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            // Sockets are neither regular files, directories nor links
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if(!attrs.isOther())
+                throw new BindException("Address already in use: " + path + " is not a socket");
+
+            SocketChannel live;
+            try {
+                live = SocketChannel.open(UnixDomainSocketAddress.of(path));
+            } catch(ConnectException e) {
+                live = null; // Nobody is listening; the socket is stale
+            }
+            if(live != null) {
+                live.close();
+                throw new BindException("Address already in use: " + path);
+            }
+            Files.delete(path);
+        }
+
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(path), BACKLOG);
+        path.toFile().deleteOnExit();
+        return channel;
+    }
+
+    /**
+     * acceptUnixLoop()
+     * 
+     * Acceptor thread loop for the Unix domain socket
+     */
+    void acceptUnixLoop() {
+        while(udsChannel.isOpen()) {
+            try {
+                startWorker(new Transport(udsChannel.accept()));
+            } catch(IOException i) {
+                if(udsChannel.isOpen()) {
+                    Tracer.warn("Failed to accept unix connection: %s", i);
+                    backoff();
+                }
+            }
+        }
+    }
+
+    /**
+     * acceptLoop(ServerSocket listener)
+     * 
+     * Acceptor thread loop. Keeps accepting connections until the
+     * listening socket is closed.
+     * 
+     * @param listener The socket to accept connections on
+     */
+    void acceptLoop(ServerSocket listener) {
+        while(!listener.isClosed()) {
+            try {
+                initConnection(listener);
+            } catch(IOException i) {
+                if(!listener.isClosed()) {
+                    Tracer.warn("Failed to accept connection: %s", i);
+                    backoff();
+                }
+            }
+        }
+    }
+
+    /**
+     * backoff()
+     * 
+     * Pause an acceptor after a failed accept so a persistent error
+     * (such as running out of file descriptors) does not spin the
+     * thread and flood the tracer
+     */
+    void backoff() {
+        try {
+            Thread.sleep(ACCEPT_BACKOFF);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * startWorker(Transport transport)
+     * 
+     * Start the thread that serves a newly accepted connection. The
+     * connection is closed if the thread cannot be started.
+     * 
+     * @param transport The newly accepted connection
+     * @throws IOException The worker thread could not be started
+     */
+    void startWorker(Transport transport) throws IOException {
+        try {
+            new Thread(() -> serveClient(transport)).start(); // Start the new thread for the client
+        } catch(OutOfMemoryError | IllegalThreadStateException e) {
+            transport.close();
+            throw new IOException("Failed to start client thread: " + e, e);
+        }
     }
 
     /**
-     * initConnection()
+     * initConnection(ServerSocket listener)
      * 
      * Initiate client connection and handles server-side logic.  
-     * Listens for incoming client connections and spawns a new
-     * thread to handle specific client communication
+     * Accepts an incoming client connection and spawns a new
+     * thread to handle specific client communication. The
+     * handshake happens on that thread so a slow client never
+     * holds up the accept loop.
      * 
+     * @param listener The socket to accept the connection on
      * @throws IOException Something went wrong on the client side
      */
-    void initConnection() throws IOException {
+    void initConnection(ServerSocket listener) throws IOException {
         // Accept a new client connection
-        Socket clientSocket = serverSocket.accept();
+        Socket clientSocket = listener.accept();
         
         // Terminate if client connection fails
         if(!clientSocket.isConnected()) return;
 
-        DataInputStream dis = new DataInputStream(clientSocket.getInputStream());
-        String clientName = dis.readUTF();
-        if(clientName.trim().isEmpty()) {
-            System.err.println("Client name cannot be empty");
+        // Create a new thread to handle client communication
+        try {
+            // Let the OS probe connections whose peer vanished without a FIN
+            clientSocket.setKeepAlive(true);
+            startWorker(new Transport(clientSocket));
+        } catch(IOException i) {
             clientSocket.close();
-            return;
+            throw i;
         }
-        
-        // Create a new thread to handle client communication
-        new Thread(() -> {
-            // Create an instance of ConnectedClient for this specific client
-            ConnectedClient client = new ConnectedClient(clientSocket, ++index, clientName);
-            clients.add(client);
+    }
+
+    /**
+     * handshake(Transport clientSocket)
+     * 
+     * Read the client's name. The socket is closed if the name does
+     * not arrive within HANDSHAKE_TIMEOUT ms.
+     * 
+     * The deadline task and the reader race to settle the handshake;
+     * only the side that wins closes the socket or carries on, so a
+     * name arriving right at the deadline is never half-accepted.
+     * 
+     * @param clientSocket The newly accepted connection
+     * @return The client name, or null if the handshake failed
+     */
+    String handshake(Transport clientSocket) {
+        AtomicBoolean settled = new AtomicBoolean();
+        TimerWheel.Timeout deadline = timers.schedule(() -> {
+            if(!settled.compareAndSet(false, true)) return;
+            try {
+                clientSocket.close();
+            } catch(IOException i) {
+                // Closing is best effort; the pending read fails either way
+            }
+        }, HANDSHAKE_TIMEOUT);
+
+        try {
+            DataInputStream dis = new DataInputStream(clientSocket.getInputStream());
+            String clientName = dis.readUTF();
+            if(!settled.compareAndSet(false, true))
+                throw new SocketTimeoutException("Handshake timed out");
+            deadline.cancel();
+
+            if(clientName.trim().isEmpty()) {
+                Tracer.warn("Client name cannot be empty");
+                clientSocket.close();
+                return null;
+            }
+            return clientName;
+        } catch(IOException i) {
+            deadline.cancel();
+            if(!settled.compareAndSet(false, true))
+                i = new SocketTimeoutException("Handshake timed out");
+            Tracer.warn("Handshake with %s failed: %s", clientSocket.getRemoteAddress(), i);
+            try {
+                clientSocket.close();
+            } catch(IOException e) {
+                // Already closed
+            }
+            return null;
+        }
+    }
+
+    /**
+     * serveClient(Transport clientSocket)
+     * 
+     * Worker thread body. Performs the handshake, then serves the
+     * client's requests until it disconnects.
+     * 
+     * @param clientSocket The newly accepted connection
+     */
+    void serveClient(Transport clientSocket) {
+        String clientName = handshake(clientSocket);
+        if(clientName == null) return;
+
+        // Create an instance of ConnectedClient for this specific client
+        ConnectedClient client = new ConnectedClient(clientSocket, index.incrementAndGet(), clientName);
+        clients.add(client);
 
+        // Reap the client if it goes silent for too long
+        TimerWheel.Timeout[] idleCheck = new TimerWheel.Timeout[1];
+        if(IDLE_TIMEOUT > 0)
+            scheduleIdleCheck(client, IDLE_TIMEOUT, idleCheck);
+
+        try {
             // Process client's input and send the result
             handleClientRequest(client);
+        } finally {
+            synchronized(idleCheck) {
+                if(idleCheck[0] != null)
+                    idleCheck[0].cancel();
+            }
 
             // Close the client connection
             client.close();
 
+            // Record the finished session, then forget the client so
+            // neither memory nor logging cost grows with past sessions
             synchronized(Server.class) {
                 try {
-                    logClient();
+                    logClient(client);
                 } catch (IOException e) {
-                    System.out.println("Failed to log client: " + e);
+                    Tracer.error("Failed to log client: %s", e);
                 }
             }
-            
-        }).start(); // Start the new thread for the client   
+            clients.remove(client);
+        }
     }
 
     /**
@@ -122,13 +434,30 @@ public class Server {
      * Calls the evaluate method to compute the result and
      * sends it back to the client.
      * 
+     * Equations arrive either as text or pre-tokenized by the
+     * client, in which case they are only validated, not re-parsed.
+     * 
      * @param client The ConnectedClient instance representing the connected client
      */
     void handleClientRequest(ConnectedClient client) {
+        Infix calculator = new Infix(); // Infix is stateful, so one per client thread
         String eq;
-        while(!(eq = client.read()).equals("#")) {
-            System.out.printf("Client [%s]-%d is asking for: %s\n", client.getName(), client.getId(), eq);
-            double value = calculator.evaluate(eq);
+        while((eq = client.read()) != null && !eq.equals(Transport.CLOSE)) {
+            ExpressionParser.Tokens tokens = null;
+            if(eq.equals(Transport.TOKENS)) {
+                if((tokens = client.readTokens()) == null) break;
+                eq = tokens.toString();
+            }
+
+            Tracer.trace(Tracer.Level.INFO, client.getName(), "Client [%s]-%d is asking for: %s", client.getName(), client.getId(), eq);
+            double value;
+            try {
+                value = tokens != null ? calculator.evaluate(tokens) : calculator.evaluate(eq);
+            } catch(RuntimeException e) {
+                // e.g. division by zero, or tokens in an order that cannot be evaluated
+                Tracer.warn("Client [%s]-%d: %s", client.getName(), client.getId(), e);
+                value = Double.NaN;
+            }
             client.sendResponse(value);
             client.logRequest(eq, value);
         }
@@ -138,65 +467,81 @@ public class Server {
     }
 
     /**
-     * logClient()
+     * scheduleIdleCheck(ConnectedClient client, long delay, TimerWheel.Timeout[] handle)
+     * 
+     * Schedule a check of how long a client has been silent.
+     * 
+     * Activity on the connection only updates a timestamp; the check
+     * itself re-arms for the remaining time when the client has been
+     * active, so each frame costs O(1) and never touches the wheel.
+     * 
+     * @param client The client to watch
+     * @param delay Milliseconds until the check runs
+     * @param handle Holder for the current timeout so it can be cancelled
+     */
+    void scheduleIdleCheck(ConnectedClient client, long delay, TimerWheel.Timeout[] handle) {
+        synchronized(handle) {
+            handle[0] = timers.schedule(() -> {
+                if(client.isClosed()) return;
+
+                long idle = client.getIdleNanos() / 1_000_000;
+                if(idle >= IDLE_TIMEOUT) {
+                    Tracer.info("Client [%s]-%d idle for %d ms, closing", client.getName(), client.getId(), idle);
+                    client.close(); // Unblocks the worker thread's pending read
+                } else {
+                    scheduleIdleCheck(client, IDLE_TIMEOUT - idle, handle);
+                }
+            }, delay);
+        }
+    }
+
+    /**
+     * logClient(ConnectedClient client)
      * 
-     * Write a log of connected clients and their requests
-     * to a log file.
+     * Append a finished client session and its requests to the
+     * server's log file. Only this client's record is written, so
+     * the cost does not depend on how many clients came before.
      * 
+     * @param client The client whose session has ended
      * @throws IOException Server failed to log the client
      */
-    void logClient() throws IOException {
+    void logClient(ConnectedClient client) throws IOException {
         // Create a /Log directory if it does not exists
-        String dirName = "Log";
-        String currDir = System.getProperty("user.dir");
-        String dirPath = currDir + File.separator + dirName;
-        File dir = new File(dirPath);
+        File dir = logFile.getParentFile();
 
         if(!dir.exists()) 
             dir.mkdir();
 
-        // Create the log file
-        String fName = String.format(
-            "log_%s.txt", 
-            LocalDateTime.now().format(
-                DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss")
-            )
-        );
-        File f = new File(dirPath + File.separator + fName);
-
         DateTimeFormatter df = DateTimeFormatter.ofPattern("yyyy-MM-d HH:mm:ss");
-        
-        // Log every connected client to the file
-        try(FileWriter fw = new FileWriter(f)) {
+
+        try(FileWriter fw = new FileWriter(logFile, true)) {
             BufferedWriter bw = new BufferedWriter(fw);
             PrintWriter pw = new PrintWriter(bw);
 
-            for(ConnectedClient client : clients) {
-                Duration session = Duration.between(client.getStartTime(), LocalDateTime.now());
-                long minutes = session.toMinutes();
-                long seconds = session.getSeconds() % 60;
+            Duration session = Duration.between(client.getStartTime(), LocalDateTime.now());
+            long minutes = session.toMinutes();
+            long seconds = session.getSeconds() % 60;
 
-                String startTime = client.getStartTime().format(df);
+            String startTime = client.getStartTime().format(df);
 
-                String disconnectTime = client.getDisconnectTime() != null ?
-                    client.getDisconnectTime().format(df) :
-                    "Still Connected";
+            String disconnectTime = client.getDisconnectTime() != null ?
+                client.getDisconnectTime().format(df) :
+                "Still Connected";
 
-                pw.println("==========================================================");
-                pw.printf("Client: [%s]-%d\n", client.getName(), client.getId());
-                pw.printf("Connected At: %s\n", startTime);
-                pw.printf("Session Duration: %d min %d sec\n", minutes, seconds);
-                pw.println("Requests:");
-                for(String log : client.getRequestLog()) {
-                    pw.printf("\t%s\n", log);
-                }
-                pw.printf("Disconnected at: %s\n", disconnectTime);
-                pw.println("==========================================================");
+            pw.println("==========================================================");
+            pw.printf("Client: [%s]-%d\n", client.getName(), client.getId());
+            pw.printf("Connected At: %s\n", startTime);
+            pw.printf("Session Duration: %d min %d sec\n", minutes, seconds);
+            pw.println("Requests:");
+            for(String log : client.getRequestLog()) {
+                pw.printf("\t%s\n", log);
             }
+            pw.printf("Disconnected at: %s\n", disconnectTime);
+            pw.println("==========================================================");
 
             pw.flush();
         } catch(IOException i) {
-            System.err.println("Failed to write file: " + i);
+            Tracer.error("Failed to write file: %s", i);
             return;
         }
     }
@@ -0,0 +1,247 @@
+import java.util.*;
+
+/**
+ * TimerWheel.java
+ *
+ * Hierarchical timing wheel for scheduling large numbers of
+ * coarse-grained timeouts (idle checks, heartbeats, deadlines).
+ *
+ * Time advances in fixed ticks. Each level holds 64 slots, and each
+ * slot of level n spans 64^n ticks. Timeouts are placed on the lowest
+ * level whose range covers their deadline and are cascaded down as
+ * the wheel turns, so scheduling, cancelling and firing a timeout are
+ * all O(1) regardless of how many are pending.
+ *
+ * Expired tasks run on the wheel's single worker thread and must be
+ * short; anything slow should be handed off to another thread.
+ */
+public class TimerWheel {
+    static final int SLOT_BITS = 6; // log2 of the number of slots per level
+    static final int SLOTS = 1 << SLOT_BITS; // Slots per level
+    static final int SLOT_MASK = SLOTS - 1;
+    static final int LEVELS = 4; // Number of levels, covering 64^4 ticks
+
+    /**
+     * Timeout
+     *
+     * Handle to a scheduled task. Timeouts in the same slot are kept
+     * in an intrusive doubly linked list so they can be unlinked in O(1).
+     */
+    public class Timeout {
+        final Runnable task; // Task to run when the timeout expires
+        long deadline; // Tick at which the task is due
+        Timeout prev, next; // Neighbours in the slot list
+        Slot slot; // Slot currently holding the timeout, or null
+        volatile boolean cancelled; // Set once the timeout is cancelled
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * cancel()
+         *
+         * Remove the timeout from the wheel if it has not fired yet
+         */
+        public void cancel() {
+            synchronized(TimerWheel.this) {
+                cancelled = true;
+                if(slot != null)
+                    slot.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Slot
+     *
+     * A single bucket of the wheel
+     */
+    static class Slot {
+        Timeout head; // First timeout in the bucket
+
+        void add(Timeout t) {
+            t.slot = this;
+            t.prev = null;
+            t.next = head;
+            if(head != null)
+                head.prev = t;
+            head = t;
+        }
+
+        void remove(Timeout t) {
+            if(t.prev != null)
+                t.prev.next = t.next;
+            else
+                head = t.next;
+            if(t.next != null)
+                t.next.prev = t.prev;
+            t.prev = t.next = null;
+            t.slot = null;
+        }
+
+        /**
+         * clear()
+         *
+         * @return The detached list of timeouts that were in the bucket
+         */
+        Timeout clear() {
+            Timeout list = head;
+            head = null;
+            return list;
+        }
+    }
+
+    final long tickMillis; // Duration of a single tick
+    final Slot[][] wheel; // wheel[level][slot]
+    final long startNanos; // Time the wheel started turning
+    long currentTick; // Last tick that has been processed
+    final Thread worker; // Thread that advances the wheel and runs tasks
+    volatile boolean running;
+
+    /**
+     * TimerWheel(String name, long tickMillis)
+     *
+     * Create and start a timer wheel
+     *
+     * @param name Name of the worker thread
+     * @param tickMillis Resolution of the wheel in milliseconds
+     */
+    public TimerWheel(String name, long tickMillis) {
+        this.tickMillis = Math.max(1, tickMillis);
+        wheel = new Slot[LEVELS][SLOTS];
+        for(Slot[] level : wheel)
+            for(int i = 0; i < SLOTS; i++)
+                level[i] = new Slot();
+
+        startNanos = System.nanoTime();
+        currentTick = 0;
+        running = true;
+
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * schedule(Runnable task, long delayMillis)
+     *
+     * Schedule a task to run after the given delay
+     *
+     * @param task The task to run
+     * @param delayMillis Delay in milliseconds (rounded up to a whole tick)
+     * @return A handle that can be used to cancel the task
+     */
+    public synchronized Timeout schedule(Runnable task, long delayMillis) {
+        // Measure the deadline from the clock, not from currentTick,
+        // which falls behind while the worker is busy running tasks;
+        // otherwise the timeout would fire early by that lag
+        long tickNanos = tickMillis * 1_000_000;
+        long due = (System.nanoTime() - startNanos + Math.max(0, delayMillis) * 1_000_000 + tickNanos - 1) / tickNanos;
+
+        // The current tick has already been expired, so the earliest
+        // a new timeout can fire is the next one
+        Timeout t = new Timeout(task, Math.max(currentTick + 1, due));
+        place(t);
+        return t;
+    }
+
+    /**
+     * stop()
+     *
+     * Stop the worker thread. Pending timeouts never fire.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * place(Timeout t)
+     *
+     * Put a timeout into the slot of the lowest level that can
+     * hold its deadline. A timeout cascading down on the tick it is
+     * due goes into the level 0 slot that tick() is about to expire.
+     *
+     * @param t The timeout to place
+     */
+    void place(Timeout t) {
+        long delta = Math.max(0, t.deadline - currentTick);
+        int level = 0;
+        while(level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1)))
+            level++;
+
+        // Deadlines beyond the top level are parked in its furthest
+        // slot and re-placed once they cascade down
+        long deadline = Math.max(currentTick, Math.min(t.deadline, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1));
+        int index = (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        wheel[level][index].add(t);
+    }
+
+    /**
+     * tick()
+     *
+     * Advance the wheel by one tick, cascading higher levels as
+     * needed
+     *
+     * @return The list of timeouts that have expired on this tick
+     */
+    synchronized Timeout tick() {
+        currentTick++;
+
+        // Cascade each level whose lower level has just wrapped around
+        for(int level = 1; level < LEVELS; level++) {
+            if(((currentTick >>> (SLOT_BITS * (level - 1))) & SLOT_MASK) != 0)
+                break;
+            int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Timeout t = wheel[level][index].clear();
+            while(t != null) {
+                Timeout next = t.next;
+                t.slot = null;
+                place(t);
+                t = next;
+            }
+        }
+
+        Timeout expired = wheel[0][(int) (currentTick & SLOT_MASK)].clear();
+        for(Timeout t = expired; t != null; t = t.next)
+            t.slot = null;
+        return expired;
+    }
+
+    /**
+     * run()
+     *
+     * Worker loop. Sleeps until the next tick is due, catches up on
+     * any ticks that were missed and runs the expired tasks.
+     */
+    void run() {
+        while(running) {
+            long elapsed = (System.nanoTime() - startNanos) / 1_000_000 / tickMillis;
+
+            while(currentTick < elapsed) {
+                Timeout t = tick();
+                while(t != null) {
+                    Timeout next = t.next;
+                    if(!t.cancelled) {
+                        try {
+                            t.task.run();
+                        } catch(RuntimeException e) {
+                            Tracer.error("Timer task failed: %s", e);
+                        }
+                    }
+                    t = next;
+                }
+            }
+
+            long sleep = (currentTick + 1) * tickMillis - (System.nanoTime() - startNanos) / 1_000_000;
+            try {
+                if(sleep > 0)
+                    Thread.sleep(sleep);
+            } catch(InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
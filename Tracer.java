@@ -0,0 +1,315 @@
+import java.io.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracer.java
+ *
+ * Leveled, sampled tracing facility used in place of printing
+ * directly to System.out/System.err.
+ *
+ * Trace events are pushed onto a bounded ring buffer and written out
+ * by a single background sink thread, so callers on the request path
+ * never block on the console. Formatting is deferred to the sink
+ * thread as well. When the buffer is full, events are dropped and
+ * counted rather than stalling the caller.
+ *
+ * Configuration (system properties):
+ * - trace.level:  minimum level to record (DEBUG, INFO, WARN, ERROR, OFF), default INFO
+ * - trace.sample: default sampling rate for per-client events (0.0 - 1.0), default 1.0
+ * - trace.sample.<client>: sampling rate for one client's events, overriding trace.sample
+ * - trace.buffer: ring buffer capacity, default 8192
+ */
+public class Tracer {
+    /**
+     * Level
+     *
+     * Severity of a trace event, in increasing order
+     */
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /**
+     * Event
+     *
+     * A single unformatted trace event waiting in the ring buffer
+     */
+    static class Event {
+        final long timestamp; // Time the event was recorded (ms since epoch)
+        final Level level; // Severity of the event
+        final String thread; // Name of the thread that recorded the event
+        final String format; // Format string of the message
+        final Object[] args; // Arguments for the format string
+
+        Event(Level level, String format, Object[] args) {
+            this.timestamp = System.currentTimeMillis();
+            this.level = level;
+            this.thread = Thread.currentThread().getName();
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    static volatile Level threshold = parseLevel(System.getProperty("trace.level", "INFO"));
+    static volatile double defaultSampleRate = parseRate(System.getProperty("trace.sample", "1.0"));
+    static final Map<String, Double> sampleRates = new ConcurrentHashMap<>(); // Per-client sampling rates
+
+    static final BlockingQueue<Event> ring = new ArrayBlockingQueue<>(Integer.getInteger("trace.buffer", 8192));
+    static final AtomicLong dropped = new AtomicLong(); // Events dropped due to a full buffer
+    static final DateTimeFormatter df = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    static final Thread sink;
+
+    static {
+        // Per-client rates from trace.sample.<client> properties
+        String prefix = "trace.sample.";
+        for(String key : System.getProperties().stringPropertyNames()) {
+            if(key.startsWith(prefix) && key.length() > prefix.length())
+                sampleRates.put(key.substring(prefix.length()), parseRate(System.getProperty(key)));
+        }
+
+        sink = new Thread(Tracer::drain, "tracer-sink");
+        sink.setDaemon(true);
+        sink.start();
+
+        // Flush whatever is still buffered when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Tracer::flush, "tracer-flush"));
+    }
+
+    private Tracer() {}
+
+    /**
+     * setLevel(Level level)
+     *
+     * @param level The minimum level that will be recorded
+     */
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    /**
+     * setSampleRate(double rate)
+     *
+     * @param rate Default fraction of per-client events to record,
+     *             clamped to [0, 1]
+     */
+    public static void setSampleRate(double rate) {
+        defaultSampleRate = clamp(rate);
+    }
+
+    /**
+     * setSampleRate(String client, double rate)
+     *
+     * Overrides the default rate for one client, the same as the
+     * trace.sample.<client> system property.
+     *
+     * @param client The client name the rate applies to
+     * @param rate Fraction of this client's events to record,
+     *             clamped to [0, 1]
+     */
+    public static void setSampleRate(String client, double rate) {
+        sampleRates.put(client, clamp(rate));
+    }
+
+    /**
+     * isEnabled(Level level)
+     *
+     * @param level Level of a prospective event
+     * @return True if events at this level are recorded
+     */
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(threshold) >= 0;
+    }
+
+    /**
+     * debug(String format, Object... args)
+     *
+     * Record an unsampled DEBUG event
+     */
+    public static void debug(String format, Object... args) {
+        trace(Level.DEBUG, null, format, args);
+    }
+
+    /**
+     * info(String format, Object... args)
+     *
+     * Record an unsampled INFO event
+     */
+    public static void info(String format, Object... args) {
+        trace(Level.INFO, null, format, args);
+    }
+
+    /**
+     * warn(String format, Object... args)
+     *
+     * Record a WARN event
+     */
+    public static void warn(String format, Object... args) {
+        trace(Level.WARN, null, format, args);
+    }
+
+    /**
+     * error(String format, Object... args)
+     *
+     * Record an ERROR event
+     */
+    public static void error(String format, Object... args) {
+        trace(Level.ERROR, null, format, args);
+    }
+
+    /**
+     * trace(Level level, String client, String format, Object... args)
+     *
+     * Record a trace event. Events tied to a client are sampled at
+     * that client's rate; WARN and ERROR events are never sampled out.
+     *
+     * @param level Severity of the event
+     * @param client The client the event belongs to, or null
+     * @param format Format string of the message
+     * @param args Arguments for the format string
+     */
+    public static void trace(Level level, String client, String format, Object... args) {
+        if(!isEnabled(level)) return;
+
+        if(client != null && level.compareTo(Level.WARN) < 0) {
+            double rate = sampleRates.getOrDefault(client, defaultSampleRate);
+            if(rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate))
+                return;
+        }
+
+        if(!ring.offer(new Event(level, format, args)))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * drain()
+     *
+     * Sink thread loop. Takes events off the ring buffer in batches
+     * and writes them to the console. A batch that fails to write is
+     * reported and skipped; the sink never stops on its own.
+     */
+    static void drain() {
+        List<Event> batch = new ArrayList<>();
+        while(true) {
+            try {
+                batch.add(ring.take());
+            } catch(InterruptedException e) {
+                return;
+            }
+            ring.drainTo(batch);
+            try {
+                write(batch);
+            } catch(RuntimeException e) {
+                System.err.printf("[tracer] failed to write %d events: %s%n", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * flush()
+     *
+     * Write out every event still waiting in the ring buffer
+     */
+    static void flush() {
+        List<Event> batch = new ArrayList<>();
+        ring.drainTo(batch);
+        write(batch);
+    }
+
+    /**
+     * write(List<Event> batch)
+     *
+     * Format a batch of events and write them to System.out
+     * (DEBUG/INFO) or System.err (WARN/ERROR)
+     *
+     * @param batch The events to write
+     */
+    static synchronized void write(List<Event> batch) {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+
+        long lost = dropped.getAndSet(0);
+        if(lost > 0)
+            err.append(String.format("[tracer] dropped %d events (buffer full)%n", lost));
+
+        for(Event e : batch) {
+            String msg;
+            try {
+                msg = e.args == null || e.args.length == 0 ? e.format : String.format(e.format, e.args);
+            } catch(IllegalFormatException ife) {
+                msg = e.format + " " + safeToString(e.args);
+            } catch(RuntimeException re) {
+                // e.g. an argument whose toString() throws
+                msg = e.format + " (formatting failed: " + re + ")";
+            }
+
+            String time = LocalDateTime.ofInstant(Instant.ofEpochMilli(e.timestamp), ZoneId.systemDefault()).format(df);
+            StringBuilder sb = e.level.compareTo(Level.WARN) >= 0 ? err : out;
+            sb.append(String.format("%s %-5s [%s] %s%n", time, e.level, e.thread, msg));
+        }
+
+        if(out.length() > 0) {
+            System.out.print(out);
+            System.out.flush();
+        }
+        if(err.length() > 0) {
+            System.err.print(err);
+            System.err.flush();
+        }
+    }
+
+    /**
+     * safeToString(Object[] args)
+     *
+     * @param args Arguments of an event
+     * @return The arguments written out, or a note if one of them
+     *         cannot be converted to a string
+     */
+    static String safeToString(Object[] args) {
+        try {
+            return Arrays.toString(args);
+        } catch(RuntimeException e) {
+            return "(arguments unprintable: " + e + ")";
+        }
+    }
+
+    /**
+     * parseLevel(String level)
+     *
+     * @param level Name of a level
+     * @return The matching Level, or INFO if it is not recognized
+     */
+    static Level parseLevel(String level) {
+        try {
+            return Level.valueOf(level.trim().toUpperCase());
+        } catch(IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * parseRate(String rate)
+     *
+     * @param rate Sampling rate as a string
+     * @return The rate clamped to [0, 1], or 1 if it is not a number
+     */
+    static double parseRate(String rate) {
+        try {
+            return clamp(Double.parseDouble(rate));
+        } catch(NumberFormatException e) {
+            return 1.0;
+        }
+    }
+
+    /**
+     * clamp(double rate)
+     *
+     * @param rate Sampling rate
+     * @return The rate clamped to [0, 1], or 1 if it is NaN
+     */
+    static double clamp(double rate) {
+        return Double.isNaN(rate) ? 1.0 : Math.max(0, Math.min(1, rate));
+    }
+}
@@ -0,0 +1,195 @@
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.io.*;
+
+/**
+ * Transport.java
+ *
+ * A connected byte stream between a client and the server, either a
+ * TCP Socket or a Unix domain SocketChannel. Both expose plain
+ * Input/OutputStreams so the same writeUTF/readUTF framing is used
+ * over either one.
+ *
+ * Also holds the control frames of the protocol, which both Client
+ * and Server use.
+ */
+public class Transport implements Closeable {
+    public static final String CLOSE = "#"; // Frame sent by the client to end the session
+    public static final String HEARTBEAT = "\u0006"; // Keepalive frame, never answered
+    public static final String TOKENS = "\u0002"; // Marks that a binary token frame follows
+
+    final Socket socket; // TCP socket, or null for a Unix domain socket
+    final SocketChannel channel; // Unix domain channel, or null for TCP
+    final InputStream in; // Raw (unbuffered) input stream
+    final OutputStream out; // Raw (unbuffered) output stream
+
+    /**
+     * Transport(Socket socket)
+     *
+     * @param socket A connected TCP socket
+     * @throws IOException Failed to get the socket's streams
+     */
+    Transport(Socket socket) throws IOException {
+        this.socket = socket;
+        this.channel = null;
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Transport(SocketChannel channel)
+     *
+     * @param channel A connected, blocking socket channel
+     */
+    Transport(SocketChannel channel) {
+        this.socket = null;
+        this.channel = channel;
+        this.in = new ChannelInput(channel);
+        this.out = new ChannelOutput(channel);
+    }
+
+    /**
+     * connect(String address, int port)
+     *
+     * @param address The IP address or host name of the server
+     * @param port The port number
+     * @return A TCP transport connected to the server
+     * @throws IOException Failed to connect
+     */
+    public static Transport connect(String address, int port) throws IOException {
+        return new Transport(new Socket(address, port));
+    }
+
+    /**
+     * connect(Path path)
+     *
+     * @param path Path of the server's Unix domain socket
+     * @return A Unix domain transport connected to the server
+     * @throws IOException Failed to connect
+     */
+    public static Transport connect(Path path) throws IOException {
+        return new Transport(SocketChannel.open(UnixDomainSocketAddress.of(path)));
+    }
+
+    /**
+     * getInputStream()
+     *
+     * @return The raw input stream of the connection
+     */
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * getOutputStream()
+     *
+     * @return The raw output stream of the connection
+     */
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * isUnixDomain()
+     *
+     * @return True if this is a Unix domain socket connection
+     */
+    public boolean isUnixDomain() {
+        return channel != null;
+    }
+
+    /**
+     * getRemoteAddress()
+     *
+     * @return Description of the peer, for logging
+     */
+    public String getRemoteAddress() {
+        if(socket != null)
+            return String.valueOf(socket.getRemoteSocketAddress());
+        try {
+            // Unix domain peers are normally unnamed, so report the socket path
+            return "unix:" + channel.getLocalAddress();
+        } catch(IOException i) {
+            return "unix";
+        }
+    }
+
+    /**
+     * close()
+     *
+     * Close the connection. Unblocks any thread reading from it.
+     *
+     * @throws IOException Failed to close the connection
+     */
+    @Override
+    public void close() throws IOException {
+        if(socket != null)
+            socket.close();
+        else
+            channel.close();
+    }
+
+    /**
+     * ChannelInput
+     *
+     * InputStream reading straight from a SocketChannel. Unlike
+     * Channels.newInputStream it does not take the channel's blocking
+     * lock, so a read does not block concurrent writes.
+     */
+    static class ChannelInput extends InputStream {
+        final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * ChannelOutput
+     *
+     * OutputStream writing straight to a SocketChannel
+     */
+    static class ChannelOutput extends OutputStream {
+        final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            while(buf.hasRemaining())
+                channel.write(buf);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
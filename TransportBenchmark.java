@@ -0,0 +1,219 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * TransportBenchmark.java
+ *
+ * Compares request latency and throughput of loopback TCP against
+ * the Unix domain socket transport, and of one-shot evaluations over
+ * a fresh TCP session against the UDP endpoint.
+ *
+ * Starts a Server in-process listening on all of them. The session
+ * rows send the same expression back-to-back over a single
+ * connection; the one-shot rows pay for a whole connect, handshake,
+ * request and close (TCP) or a single packet exchange (UDP) per
+ * evaluation. Reports the round-trip latency distribution and the
+ * resulting request rate.
+ *
+ * The -echo rows run the same session against a bare echo listener
+ * instead of the Server, so they show the cost of the transport alone
+ * without evaluation, tracing or request logging on top.
+ *
+ * Usage: java TransportBenchmark [requests] [port]
+ * (one-shot TCP runs a tenth as many requests as the others)
+ */
+public class TransportBenchmark {
+    static final String EXPRESSION = "3*(4+5)-6/2";
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5001;
+        Path udsPath = Path.of(System.getProperty("java.io.tmpdir"), "calc-bench.sock");
+        Path echoPath = Path.of(System.getProperty("java.io.tmpdir"), "calc-bench-echo.sock");
+
+        // Keep per-request tracing out of the measurement
+        Tracer.setLevel(Tracer.Level.WARN);
+        new Server(port, udsPath);
+        new DatagramEndpoint(port, 1).start();
+
+        ServerSocket tcpEcho = new ServerSocket(0);
+        Files.deleteIfExists(echoPath);
+        ServerSocketChannel unixEcho = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        unixEcho.bind(UnixDomainSocketAddress.of(echoPath));
+        echoPath.toFile().deleteOnExit();
+
+        System.out.printf("%d requests of \"%s\"%n", requests, EXPRESSION);
+        System.out.printf("%-9s %10s %10s %10s %10s %12s%n", "", "mean(us)", "p50(us)", "p99(us)", "max(us)", "req/s");
+
+        // Run everything twice so every transport sees a warmed-up JVM
+        for(int round = 0; round < 2; round++) {
+            report("tcp", run(Transport.connect("127.0.0.1", port), requests), round == 1);
+            report("unix", run(Transport.connect(udsPath), requests), round == 1);
+            report("tcp-echo", runEcho(Transport.connect("127.0.0.1", tcpEcho.getLocalPort()), tcpEcho, null, requests), round == 1);
+            report("unix-echo", runEcho(Transport.connect(echoPath), null, unixEcho, requests), round == 1);
+            report("tcp-1x", runOneShot(port, requests / 10), round == 1);
+            report("udp-1x", runDatagram(port, requests), round == 1);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * run(Transport transport, int requests)
+     *
+     * Run a session of back-to-back requests over one connection
+     *
+     * @param transport Connection to the server
+     * @param requests Number of requests to send
+     * @return Round-trip time of every request in nanoseconds, plus
+     *         the total elapsed time as the last element
+     * @throws IOException Communication with the server failed
+     */
+    static long[] run(Transport transport, int requests) throws IOException {
+        DataOutputStream out = new DataOutputStream(transport.getOutputStream());
+        DataInputStream in = new DataInputStream(new BufferedInputStream(transport.getInputStream()));
+        long[] samples = new long[requests + 1];
+
+        out.writeUTF("bench");
+
+        long begin = System.nanoTime();
+        for(int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            out.writeUTF(EXPRESSION);
+            in.readUTF();
+            samples[i] = System.nanoTime() - start;
+        }
+        samples[requests] = System.nanoTime() - begin;
+
+        out.writeUTF(Transport.CLOSE);
+        transport.close();
+        return samples;
+    }
+
+    /**
+     * runEcho(Transport transport, ServerSocket tcp, ServerSocketChannel unix, int requests)
+     *
+     * Run a session against a bare echo listener, accepting the
+     * connection on whichever of the two listeners it was made to
+     *
+     * @param transport Connection to the echo listener
+     * @param tcp The TCP echo listener, or null
+     * @param unix The Unix domain echo listener, or null
+     * @param requests Number of requests to send
+     * @return See run()
+     * @throws IOException Communication with the listener failed
+     */
+    static long[] runEcho(Transport transport, ServerSocket tcp, ServerSocketChannel unix, int requests) throws IOException {
+        Transport peer = tcp != null ? new Transport(tcp.accept()) : new Transport(unix.accept());
+
+        Thread echo = new Thread(() -> {
+            try(peer) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(peer.getInputStream()));
+                DataOutputStream out = new DataOutputStream(peer.getOutputStream());
+                in.readUTF(); // Client name
+                String frame;
+                while(!(frame = in.readUTF()).equals(Transport.CLOSE))
+                    out.writeUTF(frame);
+            } catch(IOException i) {
+                // The benchmark closed the connection
+            }
+        }, "echo");
+        echo.setDaemon(true);
+        echo.start();
+
+        return run(transport, requests);
+    }
+
+    /**
+     * runOneShot(int port, int requests)
+     *
+     * Evaluate each expression the way a one-off caller would with
+     * Client: connect, send the name, send the expression, send # and
+     * close
+     *
+     * @param port The server's TCP port
+     * @param requests Number of evaluations
+     * @return Time of every evaluation in nanoseconds, plus the total
+     *         elapsed time as the last element
+     * @throws IOException Communication with the server failed
+     */
+    static long[] runOneShot(int port, int requests) throws IOException {
+        long[] samples = new long[requests + 1];
+
+        long begin = System.nanoTime();
+        for(int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            Transport transport = Transport.connect("127.0.0.1", port);
+            DataOutputStream out = new DataOutputStream(transport.getOutputStream());
+            DataInputStream in = new DataInputStream(transport.getInputStream());
+            out.writeUTF("bench");
+            out.writeUTF(EXPRESSION);
+            in.readUTF();
+            out.writeUTF(Transport.CLOSE);
+            transport.close();
+            samples[i] = System.nanoTime() - start;
+        }
+        samples[requests] = System.nanoTime() - begin;
+
+        return samples;
+    }
+
+    /**
+     * runDatagram(int port, int requests)
+     *
+     * Evaluate each expression with a single UDP request and reply
+     *
+     * @param port The server's UDP port
+     * @param requests Number of evaluations
+     * @return Time of every evaluation in nanoseconds, plus the total
+     *         elapsed time as the last element
+     * @throws IOException Communication with the server failed
+     */
+    static long[] runDatagram(int port, int requests) throws IOException {
+        long[] samples = new long[requests + 1];
+
+        try(DatagramClient client = new DatagramClient("127.0.0.1", port)) {
+            long begin = System.nanoTime();
+            for(int i = 0; i < requests; i++) {
+                long start = System.nanoTime();
+                client.evaluate(EXPRESSION);
+                samples[i] = System.nanoTime() - start;
+            }
+            samples[requests] = System.nanoTime() - begin;
+        }
+
+        return samples;
+    }
+
+    /**
+     * report(String name, long[] samples, boolean print)
+     *
+     * @param name Name of the transport
+     * @param samples Result of run()
+     * @param print False for warm-up rounds, which are not printed
+     */
+    static void report(String name, long[] samples, boolean print) {
+        if(!print) return;
+
+        int n = samples.length - 1;
+        if(n == 0) {
+            System.out.printf("%-9s (no requests)%n", name);
+            return;
+        }
+
+        long total = samples[n];
+        long[] rtt = Arrays.copyOf(samples, n);
+        Arrays.sort(rtt);
+
+        System.out.printf("%-9s %10.1f %10.1f %10.1f %10.1f %12.0f%n",
+            name,
+            Arrays.stream(rtt).average().orElse(0) / 1e3,
+            rtt[n / 2] / 1e3,
+            rtt[(int) (n * 0.99)] / 1e3,
+            rtt[n - 1] / 1e3,
+            n / (total / 1e9));
+    }
+}
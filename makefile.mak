@@ -10,7 +10,14 @@ CLASSES = \
         Server.java \
         Client.java \
         Infix.java \
-        ConnectedClient.java 
+        ConnectedClient.java \
+        Tracer.java \
+        ExpressionParser.java \
+        TimerWheel.java \
+        Transport.java \
+        DatagramEndpoint.java \
+        DatagramClient.java \
+        TransportBenchmark.java
 
 default: classes
 
@@ -23,7 +30,14 @@ run-client: Client.class
 ifndef NAME
 	$(error NAME is not set. Usage: make run-client NAME=YourName)
 endif
+ifdef UDS
+	java Client $(NAME) $(UDS)
+else
 	java Client $(NAME)
+endif
+
+run-bench: classes
+	java TransportBenchmark
 
 clean:
 	rm -f *.class